@@ -1,4 +1,37 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 
 // --- 介面 1 ---
 interface Drivable {
@@ -20,6 +53,17 @@ abstract class Vehicle {
     protected double batteryCharge; // 單位 %
     protected int currentSpeed; // 單位 km/h
 
+    // 是否以真實時間執行 SOP 等待 (大規模模擬時關閉)
+    private static volatile boolean realTimePacing = true;
+    // 是否輸出逐車日誌 (大規模模擬時關閉，連字串都不組)
+    private static volatile boolean consoleLogging = true;
+
+    // 狀態串流 (儀表板訂閱用，未掛載時不發送)
+    private VehicleStatePublisher statePublisher;
+    private int stateSlot = -1;
+
+    private long simulatedProcessMillis = 0; // SOP 等程序的模擬耗時 (不論是否真的等待)
+
     public Vehicle(String model) {
         this.model = model;
         this.systemOnline = false;
@@ -31,33 +75,34 @@ abstract class Vehicle {
         if (!systemOnline) {
             this.systemOnline = true;
             consumeBattery(0.2);
-            System.out.println(model + " 系統啟動。目前電量：" + String.format("%.1f", batteryCharge) + "%");
+            log(() -> model + " 系統啟動。目前電量：" + String.format("%.1f", batteryCharge) + "%");
         }
     }
 
     public void powerOff() {
         if (systemOnline) {
             this.systemOnline = false;
-            this.currentSpeed = 0;
-            System.out.println(model + " 系統關閉。");
+            setCurrentSpeed(0);
+            log(() -> model + " 系統關閉。");
         } else {
-            System.out.println(model + " 系統已被 (EPS) 緊急切斷。");
+            log(() -> model + " 系統已被 (EPS) 緊急切斷。");
         }
     }
 
     protected void emergencyPowerCut() { this.systemOnline = false; }
 
     public void charge() {
-        System.out.println(model + " 正在連接超級充電站...");
+        log(() -> model + " 正在連接超級充電站...");
         this.batteryCharge = 100.0;
-        System.out.println("充電完成！目前電量：100%");
+        publish(VehicleStateField.SOC, batteryCharge);
+        log("充電完成！目前電量：100%");
     }
 
     public void engageAutopilot() {
         if (systemOnline && currentSpeed > 0) {
-            System.out.println(model + " 啟動 Autopilot 自動輔助駕駛。");
+            log(() -> model + " 啟動 Autopilot 自動輔助駕駛。");
         } else {
-            System.out.println(model + " 無法啟動 Autopilot (系統未啟動或車輛未行駛)。");
+            log(() -> model + " 無法啟動 Autopilot (系統未啟動或車輛未行駛)。");
         }
     }
 
@@ -65,9 +110,10 @@ abstract class Vehicle {
     protected boolean consumeBattery(double amount) {
         if (this.batteryCharge >= amount) {
             this.batteryCharge -= amount;
+            publish(VehicleStateField.SOC, batteryCharge);
             return true;
         } else {
-            System.out.println(model + " [檢查失敗] 電力不足！(需要 " + amount + "%, 僅剩 " + String.format("%.1f", batteryCharge) + "%)");
+            log(() -> model + " [檢查失敗] 電力不足！(需要 " + amount + "%, 僅剩 " + String.format("%.1f", batteryCharge) + "%)");
             return false;
         }
     }
@@ -75,7 +121,8 @@ abstract class Vehicle {
     protected void regainBattery(double amount) {
         this.batteryCharge += amount;
         if (this.batteryCharge > 100.0) this.batteryCharge = 100.0;
-        System.out.println(model + " [動能回收] 啟動。電力恢復 " + amount + "%。 (目前: " + String.format("%.1f", batteryCharge) + "%)");
+        publish(VehicleStateField.SOC, batteryCharge);
+        log(() -> model + " [動能回收] 啟動。電力恢復 " + amount + "%。 (目前: " + String.format("%.1f", batteryCharge) + "%)");
     }
 
     // --- Getters (給輔助系統使用) ---
@@ -83,6 +130,45 @@ abstract class Vehicle {
     public boolean isSystemOnline() { return systemOnline; }
     public double getBatteryCharge() { return batteryCharge; }
     public int getCurrentSpeed() { return currentSpeed; }
+
+    protected void setCurrentSpeed(int speed) {
+        this.currentSpeed = speed;
+        publish(VehicleStateField.SPEED, speed);
+    }
+
+    // --- 狀態串流 ---
+    public void attachStatePublisher(VehicleStatePublisher publisher) {
+        if (this.statePublisher != null) {
+            throw new IllegalStateException(model + " 已掛載狀態串流");
+        }
+        int slot = publisher.register(this); // 已滿時拋出例外，車輛維持未掛載
+        this.statePublisher = publisher;
+        this.stateSlot = slot;
+        publishState();
+    }
+    public int getStateSlot() { return stateSlot; }
+
+    // 送出完整狀態快照 (子類別可補上自己的欄位)
+    protected void publishState() {
+        publish(VehicleStateField.SOC, batteryCharge);
+        publish(VehicleStateField.SPEED, currentSpeed);
+    }
+
+    protected void publish(VehicleStateField field, double value) {
+        if (statePublisher != null) statePublisher.offer(stateSlot, field, value);
+    }
+
+    protected void recordProcessTime(int milliseconds) { this.simulatedProcessMillis += milliseconds; }
+    public long getSimulatedProcessMillis() { return simulatedProcessMillis; }
+
+    public static boolean isRealTimePacing() { return realTimePacing; }
+    public static void setRealTimePacing(boolean enabled) { realTimePacing = enabled; }
+    public static boolean isConsoleLogging() { return consoleLogging; }
+    public static void setConsoleLogging(boolean enabled) { consoleLogging = enabled; }
+
+    // 逐車日誌：關閉時不輸出；需要組字串的訊息用 Supplier 版本，關閉時連字串都不組
+    static void log(String message) { if (consoleLogging) System.out.println(message); }
+    static void log(Supplier<String> message) { if (consoleLogging) System.out.println(message.get()); }
 }
 
 
@@ -90,7 +176,7 @@ abstract class Vehicle {
 class FlyingCar extends Vehicle implements Drivable, Flyable {
 
     // 狀態機
-    private enum OperatingMode {
+    enum OperatingMode {
         GROUND, TRANSFORMING_TO_AIR, FLIGHT_READY, AIRBORNE, LANDED, TRANSFORMING_TO_GROUND,
         CRASHING
     }
@@ -146,9 +232,11 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
     public boolean isStructuralOk() { return isStructuralOk; }
     public boolean isFlightControlOk() { return isFlightControlOk; }
     public EnergyManagementSystem getEMS() { return ems; }
+    public OperatingMode getCurrentMode() { return currentMode; }
 
     public boolean isPropellerStopped() {
-        return currentMode == OperatingMode.GROUND || currentMode == OperatingMode.FLIGHT_READY;
+        return currentMode == OperatingMode.GROUND || currentMode == OperatingMode.FLIGHT_READY
+                || currentMode == OperatingMode.LANDED;
     }
 
     // 建構子
@@ -160,9 +248,26 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
         this.ems = new EnergyManagementSystem(this);
     }
 
+    private void setMode(OperatingMode mode) {
+        this.currentMode = mode;
+        publish(VehicleStateField.MODE, mode.ordinal());
+    }
+
+    private void setCurrentAltitude(int altitude) {
+        this.currentAltitude = altitude;
+        publish(VehicleStateField.ALTITUDE, altitude);
+    }
+
+    @Override
+    protected void publishState() {
+        super.publishState();
+        publish(VehicleStateField.MODE, currentMode.ordinal());
+        publish(VehicleStateField.ALTITUDE, currentAltitude);
+    }
+
     private boolean isCrashed() {
         if (currentMode == OperatingMode.CRASHING) {
-            System.out.println("[系統鎖定] 車輛處於 CRASHING 狀態，指令無效。");
+            log("[系統鎖定] 車輛處於 CRASHING 狀態，指令無效。");
             return true;
         }
         return false;
@@ -171,68 +276,68 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
     // --- 1. 語音指令：「我要飛行模式」 ---
     public void requestFlightMode() throws InterruptedException {
         if (isCrashed()) return;
-        System.out.println("\n[指令] \"我要飛行模式\"");
+        log("\n[指令] \"我要飛行模式\"");
 
         if (!this.checklist.runPreTakeoffChecklist()) {
-            System.out.println("[系統] 起飛前檢查未通過。無法轉換模式。");
+            log("[系統] 起飛前檢查未通過。無法轉換模式。");
             return;
         }
 
-        System.out.println("[系統] 正在轉換為飛行模式...");
-        this.currentMode = OperatingMode.TRANSFORMING_TO_AIR;
+        log("[系統] 正在轉換為飛行模式...");
+        setMode(OperatingMode.TRANSFORMING_TO_AIR);
 
         if (executeAirTransformSOP()) {
-            this.currentMode = OperatingMode.FLIGHT_READY;
-            System.out.println("[系統] 飛行模式已準備完畢，可隨時起飛。");
+            setMode(OperatingMode.FLIGHT_READY);
+            log("[系統] 飛行模式已準備完畢，可隨時起飛。");
         } else {
-            this.currentMode = OperatingMode.GROUND;
+            setMode(OperatingMode.GROUND);
         }
     }
 
     // --- 2. 語音指令：「起飛」 ---
     public void requestTakeOff() {
         if (isCrashed()) return;
-        System.out.println("\n[指令] \"起飛\"");
+        log("\n[指令] \"起飛\"");
 
         if (this.currentMode != OperatingMode.FLIGHT_READY && this.currentMode != OperatingMode.LANDED) {
-            System.out.println("[系統] 起飛失敗：必須處於 [飛行準備就緒] 或 [已著陸] 狀態。");
+            log("[系統] 起飛失敗：必須處於 [飛行準備就緒] 或 [已著陸] 狀態。");
             return;
         }
 
         if (!runTakeOffPreChecks()) return;
 
-        System.out.println("[系統] 正在起飛...");
+        log("[系統] 正在起飛...");
         executeTakeOff();
-        this.currentMode = OperatingMode.AIRBORNE;
+        setMode(OperatingMode.AIRBORNE);
     }
 
     // --- 3. 語音指令：巡航 ---
     public void requestFly() throws InterruptedException {
         if (isCrashed()) return;
         if (this.currentMode != OperatingMode.AIRBORNE) {
-            System.out.println("[系統] 巡航失敗：尚未起飛。");
+            log("[系統] 巡航失敗：尚未起飛。");
             return;
         }
 
         if (eps.checkForFatalErrors()) {
-            this.currentMode = OperatingMode.CRASHING;
+            setMode(OperatingMode.CRASHING);
             eps.activatePreCrashSequence();
             return;
         }
 
         double consumption = ems.getCruiseConsumption();
-        System.out.println("[系統] " + (ems.isEcoMode() ? "E-Mode" : "標準") + " 巡航... (預計消耗 " + consumption + "%)");
+        log(() -> "[系統] " + (ems.isEcoMode() ? "E-Mode" : "標準") + " 巡航... (預計消耗 " + consumption + "%)");
 
         if (consumeBattery(consumption)) {
-            this.currentSpeed = 200;
-            System.out.println("[系統] 正在 " + this.currentAltitude + " 公尺高空巡航，時速 " + currentSpeed + " km/h。");
+            setCurrentSpeed(200);
+            log(() -> "[系統] 正在 " + this.currentAltitude + " 公尺高空巡航，時速 " + currentSpeed + " km/h。");
         } else {
-            System.out.println("[系統] 飛行失敗：電力不足。");
+            log("[系統] 飛行失敗：電力不足。");
             requestLanding();
         }
 
         if (ems.isBelowLandingReserve()) {
-            System.out.println("[EMS 警告] 電量已低於 " + EnergyManagementSystem.LANDING_RESERVE_SOC + "%。觸發自動降落！");
+            log(() -> "[EMS 警告] 電量已低於 " + EnergyManagementSystem.LANDING_RESERVE_SOC + "%。觸發自動降落！");
             requestLanding();
         }
     }
@@ -240,45 +345,45 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
     // --- 4. 語音指令：降落 ---
     public void requestLanding() {
         if (isCrashed() || this.currentMode == OperatingMode.LANDED) return;
-        System.out.println("\n[指令] \"我要降落\"");
+        log("\n[指令] \"我要降落\"");
 
         if (this.currentMode != OperatingMode.AIRBORNE) {
-            System.out.println("[系統] 降落失敗：尚未起飛。");
+            log("[系統] 降落失敗：尚未起飛。");
             return;
         }
 
         if (!this.checklist.runPreLandingChecklist()) {
-            System.out.println("[系統] 降落前檢查未通過。已中斷自動降落程序。");
+            log("[系統] 降落前檢查未通過。已中斷自動降落程序。");
             return;
         }
 
-        System.out.println("[系統] 收到指令... 開始自動降落程序...");
+        log("[系統] 收到指令... 開始自動降落程序...");
         executeLand();
-        this.currentMode = OperatingMode.LANDED;
-        System.out.println("[系統] 已著陸 (Weight-on-Wheels)。可切換回地面模式。");
+        setMode(OperatingMode.LANDED);
+        log("[系統] 已著陸 (Weight-on-Wheels)。可切換回地面模式。");
     }
 
     // --- 5. 語音指令：恢復汽車模式 ---
     public void requestGroundMode() throws InterruptedException {
         if (isCrashed()) return;
-        System.out.println("\n[指令] \"恢復成汽車模式\"");
+        log("\n[指令] \"恢復成汽車模式\"");
 
         if (this.currentMode != OperatingMode.LANDED && this.currentMode != OperatingMode.FLIGHT_READY) {
-            System.out.println("[系統] 轉換失敗：必須處於 [已著陸] 或 [飛行準備就緒] 狀態。");
+            log("[系統] 轉換失敗：必須處於 [已著陸] 或 [飛行準備就緒] 狀態。");
             return;
         }
 
         if (!this.checklist.runPostLandingChecklist()) {
-            System.out.println("[系統] 著陸後檢查未通過。無法轉換模式。");
+            log("[系統] 著陸後檢查未通過。無法轉換模式。");
             return;
         }
 
-        System.out.println("[系統] 正在切換回地面模式...");
-        this.currentMode = OperatingMode.TRANSFORMING_TO_GROUND;
+        log("[系統] 正在切換回地面模式...");
+        setMode(OperatingMode.TRANSFORMING_TO_GROUND);
 
         if (executeGroundTransformSOP()) {
-            this.currentMode = OperatingMode.GROUND;
-            System.out.println("[系統] 地面模式已啟用，可以行駛。");
+            setMode(OperatingMode.GROUND);
+            log("[系統] 地面模式已啟用，可以行駛。");
         }
     }
 
@@ -294,26 +399,27 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
         return true;
     }
     private boolean runTakeOffPreChecks() {
-        System.out.println("[系統] 執行起飛前最終檢查...");
+        log("[系統] 執行起飛前最終檢查...");
         if (!consumeBattery(20.0)) { // 起飛消耗 20%
             return false;
         }
-        System.out.println("...[檢查通過] 風況穩定、無障礙物。");
+        log("...[檢查通過] 風況穩定、無障礙物。");
         return true;
     }
     private void executeTakeOff() {
-        this.currentAltitude = 150;
-        this.currentSpeed = 50;
-        System.out.println("[系統] 垂直起飛！正在爬升至 " + this.currentAltitude + "m... 電量剩餘：" + String.format("%.1f", batteryCharge) + "%");
+        setCurrentAltitude(150);
+        setCurrentSpeed(50);
+        log(() -> "[系統] 垂直起飛！正在爬升至 " + this.currentAltitude + "m... 電量剩餘：" + String.format("%.1f", batteryCharge) + "%");
     }
     private void executeLand() {
-        this.currentAltitude = 0;
-        this.currentSpeed = 0;
-        System.out.println("[系統] 準備降落... 高度 20m... 10m... 著陸。");
+        setCurrentAltitude(0);
+        setCurrentSpeed(0);
+        log("[系統] 準備降落... 高度 20m... 10m... 著陸。");
     }
     private void simulateProcess(String message, int milliseconds) throws InterruptedException {
-        System.out.println(message);
-        Thread.sleep(milliseconds);
+        log(message);
+        recordProcessTime(milliseconds);
+        if (Vehicle.isRealTimePacing()) Thread.sleep(milliseconds);
     }
 
     // --- 汽車駕駛功能 ---
@@ -321,33 +427,33 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
     public void drive() {
         if (isCrashed()) return;
         if (currentMode != OperatingMode.GROUND) {
-            System.out.println("[系統] 駕駛失敗：目前模式 (" + currentMode + ") 不允許駕駛。");
+            log(() -> "[系統] 駕駛失敗：目前模式 (" + currentMode + ") 不允許駕駛。");
             return;
         }
         if (!isSystemOnline()) {
-            System.out.println(getModel() + " 駕駛失敗：請先啟動系統。");
+            log(() -> getModel() + " 駕駛失敗：請先啟動系統。");
             return;
         }
-        this.currentSpeed = isLudicrousMode ? 210 : 120;
-        System.out.println("[系統] " + (isLudicrousMode ? "Plaid模式" : "標準模式") + " 正在地面行駛。");
+        setCurrentSpeed(isLudicrousMode ? 210 : 120);
+        log(() -> "[系統] " + (isLudicrousMode ? "Plaid模式" : "標準模式") + " 正在地面行駛。");
         consumeBattery(isLudicrousMode ? 3.0 : 1.0); // 地面駕駛耗電
     }
     @Override
     public void stopDriving() {
         if (isCrashed()) return;
         if (currentMode != OperatingMode.GROUND || this.currentSpeed == 0) return;
-        this.currentSpeed = 0;
+        setCurrentSpeed(0);
         ems.activateRegenerativeBraking();
-        System.out.println("[系統] 停止地面行駛。");
+        log("[系統] 停止地面行駛。");
     }
     public void toggleLudicrousMode() {
         if (isCrashed()) return;
         if (currentMode != OperatingMode.GROUND) {
-            System.out.println("[系統] 模式切換失敗：僅 [地面模式] 可用。");
+            log("[系統] 模式切換失敗：僅 [地面模式] 可用。");
             return;
         }
         this.isLudicrousMode = !this.isLudicrousMode;
-        System.out.println("[系統] Plaid 模式 " + (isLudicrousMode ? "啟動" : "關閉") + "!");
+        log(() -> "[系統] Plaid 模式 " + (isLudicrousMode ? "啟動" : "關閉") + "!");
     }
 
     // --- 新增：EMS 指令 ---
@@ -358,23 +464,25 @@ class FlyingCar extends Vehicle implements Drivable, Flyable {
 
     // --- 測試用：模擬系統故障 ---
     public void simulateSystemFailure(String failureType) {
-        System.out.println("[主控] 注入故障：" + failureType);
+        log(() -> "[主控] 注入故障：" + failureType);
         switch (failureType) {
             case "Propulsion": this.isPropulsionOk = false; break;
             case "Structure": this.isStructuralOk = false; break;
             case "Control": this.isFlightControlOk = false; break;
             case "Battery": this.batteryCharge = 5.0; break;
         }
+        publishState();
     }
 
     // 測試用：模擬低電量
     public void simulateLowBattery(double soc) {
         this.batteryCharge = soc;
+        publish(VehicleStateField.SOC, soc);
     }
 
-    @Override public void takeOff() { System.out.println("[API 提示] 請改用 'requestTakeOff()'。"); }
-    @Override public void fly() { System.out.println("[API 提示] 請改用 'requestFly()'。"); }
-    @Override public void land() { System.out.println("[API 提示] 請改用 'requestLanding()'。"); }
+    @Override public void takeOff() { log("[API 提示] 請改用 'requestTakeOff()'。"); }
+    @Override public void fly() { log("[API 提示] 請改用 'requestFly()'。"); }
+    @Override public void land() { log("[API 提示] 請改用 'requestLanding()'。"); }
 }
 
 
@@ -401,15 +509,15 @@ class EnergyManagementSystem {
         double currentSOC = car.getBatteryCharge();
 
         if (currentSOC < TAKEOFF_MIN_SOC) {
-            return fail("電量低於 " + TAKEOFF_MIN_SOC + "% (目前 " + String.format("%.1f", currentSOC) + "%)");
+            return fail(() -> "電量低於 " + TAKEOFF_MIN_SOC + "% (目前 " + String.format("%.1f", currentSOC) + "%)");
         }
 
         double estimatedConsumption = calculateEstimatedConsumption(this.plannedRangeKM);
         if (estimatedConsumption > currentSOC) {
-            return fail("航程預估消耗 (" + String.format("%.1f", estimatedConsumption) + "%) > 目前電量 (" + String.format("%.1f", currentSOC) + "%)");
+            return fail(() -> "航程預估消耗 (" + String.format("%.1f", estimatedConsumption) + "%) > 目前電量 (" + String.format("%.1f", currentSOC) + "%)");
         }
 
-        return pass("電量充足 (SOC " + String.format("%.1f", currentSOC) + "%)，預估航程消耗 " + String.format("%.1f", estimatedConsumption) + "%");
+        return pass(() -> "電量充足 (SOC " + String.format("%.1f", currentSOC) + "%)，預估航程消耗 " + String.format("%.1f", estimatedConsumption) + "%");
     }
 
     private double calculateEstimatedConsumption(double rangeKM) {
@@ -423,9 +531,9 @@ class EnergyManagementSystem {
     public boolean checkLandingReserve() {
         double currentSOC = car.getBatteryCharge();
         if (currentSOC < LANDING_RESERVE_SOC) {
-            return fail("電量低於安全備援 " + LANDING_RESERVE_SOC + "% (目前 " + String.format("%.1f", currentSOC) + "%)");
+            return fail(() -> "電量低於安全備援 " + LANDING_RESERVE_SOC + "% (目前 " + String.format("%.1f", currentSOC) + "%)");
         }
-        return pass("電量 > " + LANDING_RESERVE_SOC + "% (剩餘 " + String.format("%.1f", currentSOC) + "%)");
+        return pass(() -> "電量 > " + LANDING_RESERVE_SOC + "% (剩餘 " + String.format("%.1f", currentSOC) + "%)");
     }
 
     public boolean isBelowLandingReserve() {
@@ -438,12 +546,13 @@ class EnergyManagementSystem {
 
     public void toggleEcoMode() {
         this.isEcoMode = !this.isEcoMode;
-        System.out.println("[EMS] E-Mode (節能巡航) " + (isEcoMode ? "啟動" : "關閉"));
+        Vehicle.log(() -> "[EMS] E-Mode (節能巡航) " + (isEcoMode ? "啟動" : "關閉"));
     }
     public boolean isEcoMode() { return isEcoMode; }
 
-    private boolean pass(String message) { System.out.println("   [通過] " + message); return true; }
-    private boolean fail(String message) { System.out.println("   [失敗] " + message); return false; }
+    // 訊息以 Supplier 傳入：關閉主控台日誌時不必組字串
+    private boolean pass(Supplier<String> message) { Vehicle.log(() -> "   [通過] " + message.get()); return true; }
+    private boolean fail(Supplier<String> message) { Vehicle.log(() -> "   [失敗] " + message.get()); return false; }
 }
 
 
@@ -453,7 +562,7 @@ class FlightChecklist {
     public FlightChecklist(FlyingCar car) { this.car = car; }
 
     public boolean runPreTakeoffChecklist() {
-        System.out.println("--- 執行起飛前安全檢查 (Pre-Takeoff Checklist) ---");
+        Vehicle.log("--- 執行起飛前安全檢查 (Pre-Takeoff Checklist) ---");
         return checkA_Environment() &&
                 checkB_Structure() &&
                 checkC_Power() &&
@@ -462,63 +571,63 @@ class FlightChecklist {
                 checkF_Cabin();
     }
     public boolean runPreLandingChecklist() {
-        System.out.println("--- 執行降落前安全檢查 (Pre-Landing Checklist) ---");
+        Vehicle.log("--- 執行降落前安全檢查 (Pre-Landing Checklist) ---");
         return checkL_A_GroundEnv() &&
                 checkL_B_Power() &&
                 checkL_C_Sensors() &&
                 checkL_D_Structure();
     }
     public boolean runPostLandingChecklist() {
-        System.out.println("--- 執行著陸後切換檢查 ---");
+        Vehicle.log("--- 執行著陸後切換檢查 ---");
         if (car.getCurrentSpeed() > 10) return fail("地面速度 > 10 km/h");
         if (!car.isPropellerStopped()) return fail("推進器尚未完全停止");
         if (car.isObstacleNear()) return fail("周遭有障礙物，禁止收翼");
         return pass("可切換為地面模式");
     }
 
-    private boolean pass(String message) { System.out.println("   [通過] " + message); return true; }
-    private boolean fail(String message) { System.out.println("   [失敗] " + message); return false; }
+    private boolean pass(String message) { Vehicle.log(() -> "   [通過] " + message); return true; }
+    private boolean fail(String message) { Vehicle.log(() -> "   [失敗] " + message); return false; }
 
     private boolean checkA_Environment() {
-        System.out.println("A. 車輛靜止與環境檢查...");
+        Vehicle.log("A. 車輛靜止與環境檢查...");
         if (car.getCurrentSpeed() != 0) return fail("車速不為 0");
         if (!car.isParkingBrakeOn()) return fail("駐車煞車未啟動");
         return pass("環境檢查通過");
     }
     private boolean checkB_Structure() {
-        System.out.println("B. 機體與結構檢查...");
+        Vehicle.log("B. 機體與結構檢查...");
         if (!car.isWingLockSensorOk()) return fail("主翼鎖感測器異常");
         if (!car.isPropellerClear()) return fail("螺旋槳有異物");
         if (!car.isStructuralOk()) return fail("結構感測器異常");
         return pass("結構檢查通過");
     }
     private boolean checkC_Power() {
-        System.out.println("C. 電力與動力系統...");
+        Vehicle.log("C. 電力與動力系統...");
         if (!car.isBMSOk()) return fail("BMS 告警");
         if (!car.isPropulsionOk()) return fail("推進器自檢失敗");
         return car.getEMS().runPreflightCheck(); // 委託給 EMS
     }
     private boolean checkD_Sensors() {
-        System.out.println("D. 感測器與飛控系統...");
+        Vehicle.log("D. 感測器與飛控系統...");
         if (!car.isIMUHealthy()) return fail("IMU (姿態) 異常");
         if (car.getGnssSatellites() < 8) return fail("GNSS 訊號微弱");
         if (!car.isFlightControlOk()) return fail("飛行控制器錯誤");
         return pass("感測器與飛控通過");
     }
     private boolean checkE_WeightAndBalance() {
-        System.out.println("E. 重量與重心 (W&B Check)...");
+        Vehicle.log("E. 重量與重心 (W&B Check)...");
         if (car.getCurrentWeight() > car.getMaxTakeoffWeight()) return fail("超出最大起飛重量");
         return pass("重量與重心通過");
     }
     private boolean checkF_Cabin() {
-        System.out.println("F. 駕駛艙 / 內部確認...");
+        Vehicle.log("F. 駕駛艙 / 內部確認...");
         if (!car.isPassengerBelted()) return fail("乘客安全帶未繫好");
         return pass("艙內確認通過");
     }
 
     private boolean checkL_A_GroundEnv() { return pass("A. 降落區狀態良好"); }
     private boolean checkL_B_Power() {
-        System.out.println("B. 動力與電池...");
+        Vehicle.log("B. 動力與電池...");
         return car.getEMS().checkLandingReserve(); // 委託給 EMS
     }
     private boolean checkL_C_Sensors() { return pass("C. 飛控與感測器正常"); }
@@ -540,38 +649,39 @@ class EmergencyProtectionSystem {
     }
 
     private boolean trigger(String reason) {
-        System.out.println("\n--- [!!! 警告 !!!] ---");
-        System.out.println("偵測到致命級故障：" + reason);
-        System.out.println("--- 啟動 [預墜落模式] (Pre-Crash Mode) ---");
+        Vehicle.log("\n--- [!!! 警告 !!!] ---");
+        Vehicle.log(() -> "偵測到致命級故障：" + reason);
+        Vehicle.log("--- 啟動 [預墜落模式] (Pre-Crash Mode) ---");
         return true;
     }
 
     public void activatePreCrashSequence() throws InterruptedException {
-        System.out.println("\n--- (0-2 秒) 預墜落模式 ---");
+        Vehicle.log("\n--- (0-2 秒) 預墜落模式 ---");
         simulateProcess("[EPS] (II-1) 切入「姿態穩定保護」", 100);
         simulateProcess("[EPS] (II-2) 自動搜尋最佳迫降區...", 100);
         simulateProcess("[EPS] (II-3) 廣播求救訊號 (Beacon)...", 100);
-        System.out.println("\n--- (3-5 秒) 減速與準備 ---");
+        Vehicle.log("\n--- (3-5 秒) 減速與準備 ---");
         simulateProcess("[EPS] (III-4) 啟動「受控下降模式」", 200);
-        System.out.println("\n--- (5-10 秒) 最後安全動作 ---");
+        Vehicle.log("\n--- (5-10 秒) 最後安全動作 ---");
         if (car.getCurrentAltitude() >= 80) {
             simulateProcess("[EPS] (IV-6) 高度足夠，啟動「整機降落傘」", 300);
         } else {
             simulateProcess("[EPS] (IV-7) 高度不足！啟動「地面衝擊減損模式」", 300);
         }
-        System.out.println("\n--- (撞擊前 1-2 秒) 衝擊防護 ---");
-        System.out.println("[EPS] (車內語音) 衝擊防護啟動中...");
+        Vehicle.log("\n--- (撞擊前 1-2 秒) 衝擊防護 ---");
+        Vehicle.log("[EPS] (車內語音) 衝擊防護啟動中...");
         simulateProcess("[EPS] (V-8) 自動斷電 (切斷高壓電系統)", 100);
         car.emergencyPowerCut();
         simulateProcess("[EPS] (V-9) 座艙保護 (緊縮安全帶)", 100);
-        System.out.println("\n--- (撞擊後 0-5 秒) 自動救援 ---");
+        Vehicle.log("\n--- (撞擊後 0-5 秒) 自動救援 ---");
         simulateProcess("[EPS] (VI-11) 自動解鎖車門", 100);
         simulateProcess("[EPS] (VI-12) 自動啟用求救信標 (發送GPS位置)", 100);
     }
 
     private void simulateProcess(String message, int milliseconds) throws InterruptedException {
-        System.out.println(message);
-        Thread.sleep(milliseconds);
+        Vehicle.log(message);
+        car.recordProcessTime(milliseconds);
+        if (Vehicle.isRealTimePacing()) Thread.sleep(milliseconds);
     }
 }
 
@@ -582,12 +692,12 @@ class RegularCar extends Vehicle implements Drivable {
     public RegularCar(String model) { super(model); }
     public void toggleLudicrousMode() {
         this.isLudicrousMode = !this.isLudicrousMode;
-        System.out.println(getModel() + " Plaid 模式 (Ludicrous Mode) " + (isLudicrousMode ? "啟動" : "關閉") + "!");
+        log(() -> getModel() + " Plaid 模式 (Ludicrous Mode) " + (isLudicrousMode ? "啟動" : "關閉") + "!");
     }
     @Override
     public void drive() {
         if (!isSystemOnline()) {
-            System.out.println(getModel() + " 駕駛失敗：請先啟動系統。");
+            log(() -> getModel() + " 駕駛失敗：請先啟動系統。");
             return;
         }
         double consumption = isLudicrousMode ? 8.0 : 3.0;
@@ -595,19 +705,19 @@ class RegularCar extends Vehicle implements Drivable {
         String modeStr = isLudicrousMode ? "[Plaid 模式]" : "[標準模式]";
         if (consumeBattery(consumption)) {
             this.isDriving = true;
-            this.currentSpeed = speed;
-            System.out.println(getModel() + " " + modeStr + " 正在高速公路上行駛，時速 " + currentSpeed + " km/h。");
+            setCurrentSpeed(speed);
+            log(() -> getModel() + " " + modeStr + " 正在高速公路上行駛，時速 " + currentSpeed + " km/h。");
         } else {
-            System.out.println(getModel() + " 駕駛失敗：電力不足。");
+            log(() -> getModel() + " 駕駛失敗：電力不足。");
         }
     }
     @Override
     public void stopDriving() {
         if (isDriving) {
             this.isDriving = false;
-            this.currentSpeed = 0;
+            setCurrentSpeed(0);
             regainBattery(2.0); // 普通車的動能回收
-            System.out.println(getModel() + " 停車。");
+            log(() -> getModel() + " 停車。");
         }
     }
 }
@@ -616,50 +726,1263 @@ class RegularCar extends Vehicle implements Drivable {
 class Airplane extends Vehicle implements Flyable {
     private boolean isFlying;
     public Airplane(String model) { super(model); this.isFlying = false; }
+    public boolean isFlying() { return isFlying; }
     @Override
     public void takeOff() {
         if (!isSystemOnline()) {
-            System.out.println(getModel() + " 起飛失敗：請先啟動系統。");
+            log(() -> getModel() + " 起飛失敗：請先啟動系統。");
             return;
         }
         if (consumeBattery(30.0)) {
             this.isFlying = true;
-            this.currentSpeed = 300;
-            System.out.println(getModel() + " 正在從跑道起飛...");
+            setCurrentSpeed(300);
+            log(() -> getModel() + " 正在從跑道起飛...");
         } else {
-            System.out.println(getModel() + " 起飛失敗：電力不足。");
+            log(() -> getModel() + " 起飛失敗：電力不足。");
         }
     }
     @Override
     public void fly() {
         if (!isFlying) {
-            System.out.println(getModel() + " 飛行失敗：請先起飛。");
+            log(() -> getModel() + " 飛行失敗：請先起飛。");
             return;
         }
         if (consumeBattery(15.0)) {
-            this.currentSpeed = 800;
-            System.out.println(getModel() + " 正在 10000 公尺高空巡航，時速 " + currentSpeed + " km/h。");
+            setCurrentSpeed(800);
+            log(() -> getModel() + " 正在 10000 公尺高空巡航，時速 " + currentSpeed + " km/h。");
         } else {
-            System.out.println(getModel() + " 飛行失敗：電力不足，請求緊急迫降。");
+            log(() -> getModel() + " 飛行失敗：電力不足，請求緊急迫降。");
             land();
         }
     }
     @Override
     public void land() {
         if (!isFlying) {
-            System.out.println(getModel() + " 降落失敗：不在空中。");
+            log(() -> getModel() + " 降落失敗：不在空中。");
             return;
         }
         this.isFlying = false;
-        this.currentSpeed = 0;
-        System.out.println(getModel() + " 已降落在機場跑道。");
+        setCurrentSpeed(0);
+        log(() -> getModel() + " 已降落在機場跑道。");
+    }
+}
+
+
+// --- 狀態串流 1：可訂閱的欄位 ---
+enum VehicleStateField {
+    SOC,      // 電量 %
+    MODE,     // FlyingCar.OperatingMode 的 ordinal
+    ALTITUDE, // 公尺
+    SPEED     // km/h
+}
+
+
+// --- 狀態串流 2：一次送達的變更批次 (以平行陣列存放，避免每筆事件建立物件) ---
+// 每個訂閱只配置一個批次並重複使用：內容僅在 onNext 執行期間有效，需要保留請自行複製。
+class VehicleStateBatch {
+    private static final VehicleStateField[] FIELDS = VehicleStateField.values();
+    private static final FlyingCar.OperatingMode[] MODES = FlyingCar.OperatingMode.values();
+
+    private final int[] vehicleSlots;
+    private final byte[] fields;
+    private final double[] values;
+    private int size = 0;
+
+    VehicleStateBatch(int capacity) {
+        this.vehicleSlots = new int[capacity];
+        this.fields = new byte[capacity];
+        this.values = new double[capacity];
+    }
+
+    int capacity() { return values.length; }
+    void setSize(int size) { this.size = size; }
+
+    void set(int i, int vehicleSlot, int field, double value) {
+        vehicleSlots[i] = vehicleSlot;
+        fields[i] = (byte) field;
+        values[i] = value;
+    }
+
+    public int size() { return size; }
+    public int vehicleSlotAt(int i) { return vehicleSlots[i]; }
+    public VehicleStateField fieldAt(int i) { return FIELDS[fields[i]]; }
+    public double valueAt(int i) { return values[i]; }
+    public FlyingCar.OperatingMode modeAt(int i) { return MODES[(int) values[i]]; }
+}
+
+
+// --- 狀態串流 3：發布者 (每個訂閱者各自合併，慢訂閱者只會收到每台車每欄位的最新值) ---
+class VehicleStatePublisher implements Flow.Publisher<VehicleStateBatch>, AutoCloseable {
+    private static final int FIELD_COUNT = VehicleStateField.values().length;
+    private static final long NOT_OFFERED = Double.doubleToRawLongBits(Double.NaN);
+
+    private final Executor executor;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final Vehicle[] vehicles;
+    // 變更偵測 (存 double 的位元)。每格只會由該車所在的執行緒寫入，但 subscribe() 會從別的執行緒讀取快照，
+    // 因此用 volatile 語意的 AtomicLongArray：offer 先寫入再讀訂閱清單，subscribe 先加入清單再讀快照，
+    // 兩者至少一方會看到對方，新訂閱者不會漏掉變更或讀到撕裂的 double
+    private final AtomicLongArray lastOffered;
+    private final AtomicInteger registered = new AtomicInteger();
+    private final List<ConflatingSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    public VehicleStatePublisher(int capacity) {
+        this(ForkJoinPool.commonPool(), capacity, 4096);
+    }
+
+    public VehicleStatePublisher(Executor executor, int capacity, int maxBatchSize) {
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("capacity 與 maxBatchSize 必須 >= 1");
+        }
+        this.executor = executor;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.vehicles = new Vehicle[capacity];
+        this.lastOffered = new AtomicLongArray(capacity * FIELD_COUNT);
+        for (int key = 0; key < lastOffered.length(); key++) lastOffered.set(key, NOT_OFFERED);
+    }
+
+    int register(Vehicle vehicle) {
+        int slot = registered.getAndUpdate(n -> n < capacity ? n + 1 : n); // 已滿時不佔用名額
+        if (slot >= capacity) {
+            throw new IllegalStateException("狀態串流已滿 (上限 " + capacity + " 台)");
+        }
+        vehicles[slot] = vehicle;
+        return slot;
+    }
+
+    public Vehicle vehicleAt(int slot) { return vehicles[slot]; }
+
+    // 由 Vehicle 在狀態改變時呼叫；數值未變時直接略過
+    void offer(int slot, VehicleStateField field, double value) {
+        if (closed) return;
+        int key = slot * FIELD_COUNT + field.ordinal();
+        long bits = Double.doubleToRawLongBits(value);
+        if (lastOffered.get(key) == bits) return;
+        lastOffered.set(key, bits);
+        for (ConflatingSubscription subscription : subscriptions) {
+            subscription.mark(key, value);
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super VehicleStateBatch> subscriber) {
+        ConflatingSubscription subscription = new ConflatingSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscriptions.add(subscription);
+        // 初始快照：新訂閱者先收到每台車目前的狀態
+        int slots = registered.get();
+        for (int key = 0; key < slots * FIELD_COUNT; key++) subscription.seed(key);
+        if (closed) subscription.complete();
+    }
+
+    // 不再發送新變更；尚未送出的最新值仍會依需求送達，之後呼叫 onComplete
+    @Override
+    public void close() {
+        closed = true;
+        for (ConflatingSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private class ConflatingSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super VehicleStateBatch> subscriber;
+        private final double[] latest = new double[capacity * FIELD_COUNT];
+        private final BitSet dirty = new BitSet(capacity * FIELD_COUNT);
+        private final int[] pendingKeys = new int[capacity * FIELD_COUNT]; // 環狀佇列，每個 key 最多一筆
+        private final VehicleStateBatch batch = new VehicleStateBatch(Math.min(maxBatchSize, capacity * FIELD_COUNT));
+        private int head = 0;
+        private int pending = 0;
+        private long demand = 0;
+        private boolean draining = false;
+        private boolean completing = false;
+        private boolean done = false;
+        private Throwable error;
+
+        ConflatingSubscription(Flow.Subscriber<? super VehicleStateBatch> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        synchronized void mark(int key, double value) {
+            if (done) return;
+            latest[key] = value;
+            if (!dirty.get(key)) enqueue(key);
+        }
+
+        // 在鎖內讀取快照：若車輛已 mark 過，讀到的值不會比它舊；已有待送值時不覆蓋
+        synchronized void seed(int key) {
+            if (done || dirty.get(key)) return;
+            long bits = lastOffered.get(key);
+            if (bits == NOT_OFFERED) return;
+            latest[key] = Double.longBitsToDouble(bits);
+            enqueue(key);
+        }
+
+        private void enqueue(int key) {
+            dirty.set(key);
+            pendingKeys[(head + pending) % pendingKeys.length] = key;
+            pending++;
+            scheduleDrain();
+        }
+
+        synchronized void complete() {
+            completing = true;
+            scheduleDrain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (done) return;
+                if (n <= 0) {
+                    error = new IllegalArgumentException("request(n) 必須 > 0 (Flow §3.9)");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                scheduleDrain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) { done = true; }
+            subscriptions.remove(this);
+        }
+
+        // 呼叫端須持有鎖
+        private void scheduleDrain() {
+            if (draining || done) return;
+            if ((demand > 0 && pending > 0) || (completing && pending == 0) || error != null) {
+                draining = true;
+                executor.execute(this::drain);
+            }
+        }
+
+        // 同一時間只有一個 drain 在執行，確保 onNext / onComplete / onError 依序送達
+        private void drain() {
+            while (true) {
+                VehicleStateBatch next = null;
+                Throwable failure = null;
+                synchronized (this) {
+                    if (done) return;
+                    if (error != null) {
+                        failure = error;
+                        done = true;
+                    } else if (demand > 0 && pending > 0) {
+                        next = takeBatch();
+                        demand--;
+                    } else if (completing && pending == 0) {
+                        done = true;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (next == null) {
+                    subscriptions.remove(this);
+                    if (failure != null) subscriber.onError(failure);
+                    else subscriber.onComplete();
+                    return;
+                }
+                try {
+                    subscriber.onNext(next);
+                } catch (Throwable t) {
+                    cancel(); // 訂閱者拋出例外視同取消 (Flow §2.13)
+                    return;
+                }
+            }
+        }
+
+        // 填入重複使用的批次 (只有 drain 會呼叫，且同一時間只有一個 drain)
+        private VehicleStateBatch takeBatch() {
+            batch.setSize(Math.min(pending, batch.capacity()));
+            for (int i = 0; i < batch.size(); i++) {
+                int key = pendingKeys[head];
+                head = (head + 1) % pendingKeys.length;
+                dirty.clear(key);
+                batch.set(i, key / FIELD_COUNT, key % FIELD_COUNT, latest[key]);
+            }
+            pending -= batch.size();
+            return batch;
+        }
+    }
+}
+
+
+// --- 分片模擬 1：跨分片訊息批次 (每筆 13 bytes：type + vehicleId + key + trip) ---
+class MessageBatch {
+    static final byte AIRSPACE_REPORT = 1;  // 機 → 空域格主人：本 tick 佔用此空域格
+    static final byte AIRSPACE_HOLD = 2;    // 空域格主人 → 機：空域格超載，多盤旋一輪
+    static final byte LANDING_REQUEST = 3;  // 機 → 起降場主人：請求降落時段
+    static final byte LANDING_GRANT = 4;    // 起降場主人 → 機：核准降落
+    static final byte LANDING_DENY = 5;     // 起降場主人 → 機：停機坪已滿
+
+    static final int RECORD_BYTES = 1 + 4 + 4 + 4;
+
+    private byte[] types = new byte[64];
+    private int[] vehicleIds = new int[64];
+    private int[] keys = new int[64];
+    private int[] tripNumbers = new int[64]; // 回覆原樣帶回，讓車輛辨識過期的回覆
+    private int size = 0;
+
+    public void add(byte type, int vehicleId, int key, int trip) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            vehicleIds = Arrays.copyOf(vehicleIds, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            tripNumbers = Arrays.copyOf(tripNumbers, capacity);
+        }
+        types[size] = type;
+        vehicleIds[size] = vehicleId;
+        keys[size] = key;
+        tripNumbers[size] = trip;
+        size++;
+    }
+
+    public int size() { return size; }
+    public byte typeAt(int i) { return types[i]; }
+    public int vehicleIdAt(int i) { return vehicleIds[i]; }
+    public int keyAt(int i) { return keys[i]; }
+    public int tripAt(int i) { return tripNumbers[i]; }
+    public void clear() { size = 0; }
+
+    public int encodedSize() { return 4 + size * RECORD_BYTES; }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buf.put(types[i]).putInt(vehicleIds[i]).putInt(keys[i]).putInt(tripNumbers[i]);
+        }
+    }
+
+    // 直接附加在現有內容之後 (協調者合併多個分片送來的批次)
+    public void appendFrom(ByteBuffer buf) {
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            add(buf.get(), buf.getInt(), buf.getInt(), buf.getInt());
+        }
+    }
+}
+
+
+// --- 分片模擬 2：本機迴路 NIO 通道 (frame = [int 長度][byte 種類][payload]) ---
+class ShardChannel implements Closeable {
+    static final byte HELLO = 1;      // 分片 → 協調者：shardId
+    static final byte TICK = 2;       // 協調者 → 分片：tick 編號 + 收件批次
+    static final byte TICK_DONE = 3;  // 分片 → 協調者：每個目的分片各一個批次 (tick 屏障)
+    static final byte STOP = 4;       // 協調者 → 分片：結束模擬
+    static final byte METRICS = 5;    // 分片 → 協調者：統計數據
+
+    private static final int HEADER_BYTES = 5;
+
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+    private ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+    private byte receivedKind;
+
+    public ShardChannel(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    // 回傳的緩衝區已寫好標頭，呼叫者寫入 payload 後呼叫 sendFrame()
+    public ByteBuffer beginFrame(byte kind, int payloadBytes) {
+        if (out.capacity() < HEADER_BYTES + payloadBytes) {
+            out = ByteBuffer.allocateDirect(Integer.highestOneBit(HEADER_BYTES + payloadBytes) << 1);
+        }
+        out.clear();
+        out.putInt(payloadBytes).put(kind);
+        return out;
+    }
+
+    public void sendFrame() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+    }
+
+    public void send(byte kind) throws IOException {
+        beginFrame(kind, 0);
+        sendFrame();
+    }
+
+    // 以 gathering write 送出 [標頭 + prefix + parts]；parts 可直接是其他通道收件緩衝區的切片，不必複製
+    public void sendFrame(byte kind, ByteBuffer prefix, ByteBuffer[] parts) throws IOException {
+        long partBytes = 0;
+        for (ByteBuffer part : parts) partBytes += part.remaining();
+        out.clear();
+        out.putInt((int) (prefix.remaining() + partBytes)).put(kind).put(prefix).flip();
+        ByteBuffer[] frame = new ByteBuffer[parts.length + 1];
+        frame[0] = out;
+        System.arraycopy(parts, 0, frame, 1, parts.length);
+        long remaining = out.remaining() + partBytes;
+        while (remaining > 0) remaining -= channel.write(frame);
+    }
+
+    // 讀取一個完整 frame；回傳的緩衝區位置停在 payload 起點
+    public ByteBuffer receiveFrame() throws IOException {
+        in.clear().limit(HEADER_BYTES);
+        readFully();
+        int payloadBytes = in.getInt(0);
+        receivedKind = in.get(4);
+        if (in.capacity() < payloadBytes) {
+            in = ByteBuffer.allocateDirect(Integer.highestOneBit(payloadBytes) << 1);
+        }
+        in.clear().limit(payloadBytes);
+        readFully();
+        in.flip();
+        return in;
+    }
+
+    public ByteBuffer receiveFrame(byte expectedKind) throws IOException {
+        ByteBuffer frame = receiveFrame();
+        expect(expectedKind);
+        return frame;
+    }
+
+    public byte receivedKind() { return receivedKind; }
+
+    public void expect(byte expectedKind) throws IOException {
+        if (receivedKind != expectedKind) {
+            throw new IOException("協定錯誤：預期 frame " + expectedKind + "，收到 " + receivedKind);
+        }
+    }
+
+    private void readFully() throws IOException {
+        while (in.hasRemaining()) {
+            if (channel.read(in) < 0) throw new EOFException("分片連線中斷");
+        }
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
+
+
+// --- 分片模擬 3：統計數據 (各分片累計，由協調者合併) ---
+class FleetMetrics {
+    long vehicles;
+    long vehicleSteps;
+    long tripsCompleted;
+    long crashes;
+    long landingDenials;
+    long priorityLandings;
+    long airspaceConflicts;
+    long staleLandingReplies;
+    long localMessages;
+    long crossShardMessages;
+    long busyNanos;
+    double energyUsed;    // 單位 % SOC (各車加總)
+    double energyCharged; // 單位 % SOC (各車加總)
+
+    static final int ENCODED_BYTES = 11 * 8 + 2 * 8;
+
+    public void merge(FleetMetrics other) {
+        vehicles += other.vehicles;
+        vehicleSteps += other.vehicleSteps;
+        tripsCompleted += other.tripsCompleted;
+        crashes += other.crashes;
+        landingDenials += other.landingDenials;
+        priorityLandings += other.priorityLandings;
+        airspaceConflicts += other.airspaceConflicts;
+        staleLandingReplies += other.staleLandingReplies;
+        localMessages += other.localMessages;
+        crossShardMessages += other.crossShardMessages;
+        busyNanos = Math.max(busyNanos, other.busyNanos); // 取最慢的分片
+        energyUsed += other.energyUsed;
+        energyCharged += other.energyCharged;
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.putLong(vehicles).putLong(vehicleSteps).putLong(tripsCompleted).putLong(crashes)
+                .putLong(landingDenials).putLong(priorityLandings).putLong(airspaceConflicts)
+                .putLong(staleLandingReplies).putLong(localMessages).putLong(crossShardMessages).putLong(busyNanos)
+                .putDouble(energyUsed).putDouble(energyCharged);
+    }
+
+    public static FleetMetrics readFrom(ByteBuffer buf) {
+        FleetMetrics m = new FleetMetrics();
+        m.vehicles = buf.getLong();
+        m.vehicleSteps = buf.getLong();
+        m.tripsCompleted = buf.getLong();
+        m.crashes = buf.getLong();
+        m.landingDenials = buf.getLong();
+        m.priorityLandings = buf.getLong();
+        m.airspaceConflicts = buf.getLong();
+        m.staleLandingReplies = buf.getLong();
+        m.localMessages = buf.getLong();
+        m.crossShardMessages = buf.getLong();
+        m.busyNanos = buf.getLong();
+        m.energyUsed = buf.getDouble();
+        m.energyCharged = buf.getDouble();
+        return m;
+    }
+}
+
+
+// --- 分片模擬 4：單一分片 (依 vehicleId % shardCount 分配車輛、起降場、空域格) ---
+class FleetShard {
+    // 每台車的行程階段 (以陣列存放，方便十萬台規模)
+    private static final byte PARKED = 0;
+    private static final byte READY = 1;
+    private static final byte CRUISE = 2;
+    private static final byte AWAIT_SLOT = 3;
+    private static final byte LANDING = 4;
+    private static final byte CRASHED = 5;
+
+    private static final int CRUISE_LEGS = 3;
+    private static final int AIRSPACE_CELL_CAPACITY = 6;
+    private static final int VERTIPORT_PADS = 4;
+    private static final double MIN_HOLDING_SOC = 48.0; // 低於此電量不再盤旋等待，直接請求/優先降落
+
+    private final int shardId;
+    private final int shardCount;
+    private final FlyingCar[] cars;
+    private final byte[] phase;
+    private final int[] cruiseLeft;
+    private final int[] destination;
+    private final int[] trips;
+
+    private final int vertiportCount;
+    private final int airspaceCellCount;
+    private final int[] padsUsed;       // 本 tick 已核准的降落數 (僅本分片擁有的起降場)
+    private final int[] cellOccupancy;  // 本 tick 回報的空域格佔用數 (僅本分片擁有的空域格)
+
+    private MessageBatch inbox = new MessageBatch();
+    private MessageBatch nextLocal = new MessageBatch();
+    private final MessageBatch[] outbound;
+    private long[] handleOrder = new long[0];
+    private final FleetMetrics metrics = new FleetMetrics();
+
+    public FleetShard(int shardId, int shardCount, int vehicleCount) {
+        this.shardId = shardId;
+        this.shardCount = shardCount;
+        this.vertiportCount = Math.max(1, vehicleCount / 20);
+        this.airspaceCellCount = Math.max(1, vehicleCount / 4);
+        this.padsUsed = new int[vertiportCount];
+        this.cellOccupancy = new int[airspaceCellCount];
+
+        int localCount = Math.max(0, (vehicleCount - shardId + shardCount - 1) / shardCount);
+        this.cars = new FlyingCar[localCount];
+        this.phase = new byte[localCount];
+        this.cruiseLeft = new int[localCount];
+        this.destination = new int[localCount];
+        this.trips = new int[localCount];
+        for (int i = 0; i < localCount; i++) {
+            int vehicleId = vehicleIdOf(i);
+            cars[i] = new FlyingCar("FC-" + vehicleId);
+            destination[i] = mix(vehicleId, 0) % vertiportCount;
+        }
+        metrics.vehicles = localCount;
+
+        this.outbound = new MessageBatch[shardCount];
+        for (int s = 0; s < shardCount; s++) outbound[s] = new MessageBatch();
+    }
+
+    private int vehicleIdOf(int index) { return shardId + index * shardCount; }
+    private int indexOf(int vehicleId) { return vehicleId / shardCount; }
+    private int ownerOf(int key) { return key % shardCount; }
+
+    static int mix(int a, int b) {
+        int h = a * 0x9E3779B1 ^ b * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 13;
+        return h & 0x7fffffff;
+    }
+
+    // 上一 tick 的本地訊息 + 協調者轉送的跨分片訊息，成為本 tick 的收件匣
+    public void beginTick(ByteBuffer remote) {
+        MessageBatch previous = inbox;
+        inbox = nextLocal;
+        nextLocal = previous;
+        nextLocal.clear();
+        inbox.appendFrom(remote);
+        for (MessageBatch batch : outbound) batch.clear();
+    }
+
+    public void step(int tick) throws InterruptedException {
+        long start = System.nanoTime();
+        Arrays.fill(padsUsed, 0);
+        Arrays.fill(cellOccupancy, 0);
+        // 依 (vehicleId, type) 的固定順序處理，停機坪與空域格的分配結果才不會因分片數而不同
+        int count = inbox.size();
+        if (count >= 1 << 29) throw new IllegalStateException("單一 tick 訊息過多：" + count);
+        if (handleOrder.length < count) handleOrder = new long[Math.max(count, handleOrder.length * 2)];
+        for (int i = 0; i < count; i++) {
+            handleOrder[i] = (long) inbox.vehicleIdAt(i) << 32 | (long) inbox.typeAt(i) << 29 | i;
+        }
+        Arrays.sort(handleOrder, 0, count);
+        for (int n = 0; n < count; n++) {
+            int i = (int) (handleOrder[n] & ((1 << 29) - 1));
+            handle(inbox.typeAt(i), inbox.vehicleIdAt(i), inbox.keyAt(i), inbox.tripAt(i));
+        }
+        for (int i = 0; i < cars.length; i++) {
+            stepVehicle(i, tick);
+        }
+        metrics.busyNanos += System.nanoTime() - start;
+    }
+
+    private void handle(byte type, int vehicleId, int key, int trip) {
+        int index = indexOf(vehicleId); // 僅對送往本分片車輛的訊息有意義
+        switch (type) {
+            case MessageBatch.AIRSPACE_REPORT:
+                if (++cellOccupancy[key] > AIRSPACE_CELL_CAPACITY) {
+                    metrics.airspaceConflicts++;
+                    route(MessageBatch.AIRSPACE_HOLD, vehicleId, key, trip);
+                }
+                break;
+            case MessageBatch.LANDING_REQUEST:
+                if (padsUsed[key] < VERTIPORT_PADS) {
+                    padsUsed[key]++;
+                    route(MessageBatch.LANDING_GRANT, vehicleId, key, trip);
+                } else {
+                    route(MessageBatch.LANDING_DENY, vehicleId, key, trip);
+                }
+                break;
+            case MessageBatch.AIRSPACE_HOLD:
+                if (trip == trips[index] && phase[index] == CRUISE && cars[index].getBatteryCharge() >= MIN_HOLDING_SOC) {
+                    cruiseLeft[index]++;
+                }
+                break;
+            case MessageBatch.LANDING_GRANT:
+                // 回覆送達前已自動降落 (或已是下一趟) 的核准直接忽略
+                if (trip != trips[index] || phase[index] != AWAIT_SLOT) {
+                    metrics.staleLandingReplies++;
+                    break;
+                }
+                phase[index] = LANDING;
+                break;
+            case MessageBatch.LANDING_DENY:
+                if (trip != trips[index] || phase[index] != AWAIT_SLOT) {
+                    metrics.staleLandingReplies++;
+                    break;
+                }
+                metrics.landingDenials++;
+                if (cars[index].getBatteryCharge() < MIN_HOLDING_SOC) {
+                    metrics.priorityLandings++;
+                    phase[index] = LANDING;
+                } else {
+                    phase[index] = CRUISE;
+                    cruiseLeft[index] = 1;
+                }
+                break;
+        }
+    }
+
+    private void route(byte type, int vehicleId, int key, int trip) {
+        int target = type == MessageBatch.AIRSPACE_REPORT || type == MessageBatch.LANDING_REQUEST
+                ? ownerOf(key) : ownerOf(vehicleId);
+        if (target == shardId) {
+            nextLocal.add(type, vehicleId, key, trip);
+            metrics.localMessages++;
+        } else {
+            outbound[target].add(type, vehicleId, key, trip);
+            metrics.crossShardMessages++;
+        }
+    }
+
+    private void stepVehicle(int i, int tick) throws InterruptedException {
+        if (phase[i] == CRASHED) return;
+        FlyingCar car = cars[i];
+        int vehicleId = vehicleIdOf(i);
+        double socBefore = car.getBatteryCharge();
+        metrics.vehicleSteps++;
+
+        switch (phase[i]) {
+            case PARKED: // 首次出車：地面行駛到起降場後轉換為飛行模式
+                car.powerOn();
+                car.drive();
+                car.stopDriving();
+                if (!car.getEMS().isEcoMode()) car.toggleEcoMode();
+                car.requestFlightMode();
+                if (car.getCurrentMode() == FlyingCar.OperatingMode.FLIGHT_READY) phase[i] = READY;
+                break;
+            case READY:
+                car.requestTakeOff();
+                if (car.getCurrentMode() == FlyingCar.OperatingMode.AIRBORNE) {
+                    phase[i] = CRUISE;
+                    cruiseLeft[i] = CRUISE_LEGS;
+                }
+                break;
+            case CRUISE:
+            case AWAIT_SLOT: // 等待起降場回覆時維持盤旋
+                car.requestFly();
+                if (car.getCurrentMode() == FlyingCar.OperatingMode.CRASHING) {
+                    phase[i] = CRASHED;
+                    metrics.crashes++;
+                    break;
+                }
+                if (car.getCurrentMode() == FlyingCar.OperatingMode.LANDED) { // EMS 觸發自動降落
+                    finishTrip(i, vehicleId);
+                    break;
+                }
+                route(MessageBatch.AIRSPACE_REPORT, vehicleId, mix(vehicleId, tick) % airspaceCellCount, trips[i]);
+                if (phase[i] == CRUISE && (--cruiseLeft[i] <= 0 || car.getBatteryCharge() < MIN_HOLDING_SOC)) {
+                    phase[i] = AWAIT_SLOT;
+                    route(MessageBatch.LANDING_REQUEST, vehicleId, destination[i], trips[i]);
+                }
+                break;
+            case LANDING:
+                car.requestLanding();
+                if (car.getCurrentMode() == FlyingCar.OperatingMode.LANDED) {
+                    finishTrip(i, vehicleId);
+                } else {
+                    phase[i] = CRUISE;
+                    cruiseLeft[i] = 1;
+                }
+                break;
+        }
+
+        double socAfter = car.getBatteryCharge();
+        metrics.energyUsed += socBefore - socAfter;
+        // 地面或起降場上電量不足時，先充電再出發
+        if ((phase[i] == PARKED || phase[i] == READY) && socAfter < EnergyManagementSystem.TAKEOFF_MIN_SOC) {
+            metrics.energyCharged += 100.0 - socAfter;
+            car.charge();
+        }
+    }
+
+    private void finishTrip(int i, int vehicleId) {
+        metrics.tripsCompleted++;
+        trips[i]++;
+        destination[i] = mix(vehicleId, trips[i]) % vertiportCount;
+        phase[i] = READY;
+    }
+
+    public MessageBatch outboundTo(int shard) { return outbound[shard]; }
+    public FleetMetrics metrics() { return metrics; }
+
+    // --- 分片子行程進入點：java Main --fleet-shard <port> <shardId> <shardCount> <vehicleCount> ---
+    static void runWorker(int port, int shardId, int shardCount, int vehicleCount)
+            throws IOException, InterruptedException {
+        Vehicle.setRealTimePacing(false);
+        Vehicle.setConsoleLogging(false);
+
+        FleetShard shard = new FleetShard(shardId, shardCount, vehicleCount);
+        InetSocketAddress coordinator = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        try (ShardChannel channel = new ShardChannel(SocketChannel.open(coordinator))) {
+            channel.beginFrame(ShardChannel.HELLO, 4).putInt(shardId);
+            channel.sendFrame();
+
+            while (true) {
+                ByteBuffer frame = channel.receiveFrame();
+                if (channel.receivedKind() == ShardChannel.STOP) break;
+                channel.expect(ShardChannel.TICK);
+                int tick = frame.getInt();
+                shard.beginTick(frame);
+                shard.step(tick);
+
+                int payload = 0;
+                for (int s = 0; s < shardCount; s++) payload += shard.outboundTo(s).encodedSize();
+                ByteBuffer out = channel.beginFrame(ShardChannel.TICK_DONE, payload);
+                for (int s = 0; s < shardCount; s++) shard.outboundTo(s).writeTo(out);
+                channel.sendFrame();
+            }
+            shard.metrics().writeTo(channel.beginFrame(ShardChannel.METRICS, FleetMetrics.ENCODED_BYTES));
+            channel.sendFrame();
+        }
+    }
+}
+
+
+// --- 分片模擬 5：協調者 (啟動分片子行程、tick 屏障、轉送跨分片批次、合併統計) ---
+class FleetCoordinator {
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+
+    private final int shardCount;
+    private final int vehicleCount;
+    private final int ticks;
+    private long relayNanos = 0; // 協調者轉送跨分片批次的耗時
+
+    public FleetCoordinator(int shardCount, int vehicleCount, int ticks) {
+        if (shardCount < 1 || vehicleCount < 1 || ticks < 1) {
+            throw new IllegalArgumentException("分片數、車輛數與 tick 數必須 >= 1");
+        }
+        this.shardCount = shardCount;
+        this.vehicleCount = vehicleCount;
+        this.ticks = ticks;
+    }
+
+    public FleetMetrics run() throws IOException, InterruptedException {
+        List<Process> workers = new ArrayList<>();
+        ShardChannel[] channels = new ShardChannel[shardCount];
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            for (int s = 0; s < shardCount; s++) {
+                workers.add(launchWorker(port, s));
+            }
+            acceptWorkers(server, workers, channels);
+
+            System.out.println("[協調者] " + shardCount + " 個分片已連線，開始模擬 " + vehicleCount + " 台車、" + ticks + " ticks。");
+            long start = System.nanoTime();
+            runTicks(channels);
+
+            FleetMetrics total = new FleetMetrics();
+            FleetMetrics[] perShard = new FleetMetrics[shardCount];
+            for (int s = 0; s < shardCount; s++) channels[s].send(ShardChannel.STOP);
+            for (int s = 0; s < shardCount; s++) {
+                perShard[s] = FleetMetrics.readFrom(channels[s].receiveFrame(ShardChannel.METRICS));
+                total.merge(perShard[s]);
+            }
+            long wallNanos = System.nanoTime() - start;
+            printReport(total, perShard, wallNanos);
+            return total;
+        } finally {
+            for (ShardChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+            for (Process worker : workers) {
+                if (!worker.waitFor(10, TimeUnit.SECONDS)) worker.destroyForcibly();
+            }
+        }
+    }
+
+    // 協調者不解碼訊息：收齊 TICK_DONE 後，把每個來源分片送往同一目的地的位元組區段
+    // 直接以 gathering write 轉給目的分片 (TICK payload = [tick][總筆數][紀錄...])
+    private void runTicks(ShardChannel[] channels) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        int[] counts = new int[shardCount];
+        ByteBuffer[][] segments = new ByteBuffer[shardCount][shardCount]; // [目的][來源]
+        ByteBuffer[] none = new ByteBuffer[0];
+
+        for (int s = 0; s < shardCount; s++) {
+            prefix.clear();
+            prefix.putInt(0).putInt(0).flip();
+            channels[s].sendFrame(ShardChannel.TICK, prefix, none);
+        }
+        for (int tick = 1; tick <= ticks; tick++) {
+            // 屏障：收齊所有分片的 TICK_DONE 後才進入下一個 tick
+            Arrays.fill(counts, 0);
+            for (int source = 0; source < shardCount; source++) {
+                ByteBuffer done = channels[source].receiveFrame(ShardChannel.TICK_DONE);
+                int position = done.position();
+                for (int target = 0; target < shardCount; target++) {
+                    int count = done.getInt(position);
+                    int bytes = count * MessageBatch.RECORD_BYTES;
+                    segments[target][source] = done.duplicate().limit(position + 4 + bytes).position(position + 4);
+                    counts[target] += count;
+                    position += 4 + bytes;
+                }
+            }
+            if (tick == ticks) break;
+
+            long relayStart = System.nanoTime();
+            for (int target = 0; target < shardCount; target++) {
+                prefix.clear();
+                prefix.putInt(tick).putInt(counts[target]).flip();
+                channels[target].sendFrame(ShardChannel.TICK, prefix, segments[target]);
+            }
+            relayNanos += System.nanoTime() - relayStart;
+        }
+    }
+
+    private Process launchWorker(int port, int shardId) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-X") || arg.startsWith("-Dfile.encoding")) command.add(arg); // 沿用 -Xmx 等設定
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Main");
+        command.add("--fleet-shard");
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(shardId));
+        command.add(String.valueOf(shardCount));
+        command.add(String.valueOf(vehicleCount));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private void acceptWorkers(ServerSocketChannel server, List<Process> workers, ShardChannel[] channels)
+            throws IOException {
+        server.configureBlocking(false);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        int connected = 0;
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (connected < shardCount) {
+                for (Process worker : workers) {
+                    if (!worker.isAlive()) throw new IOException("分片子行程提前結束 (exit " + worker.exitValue() + ")");
+                }
+                if (System.currentTimeMillis() > deadline) throw new IOException("等待分片連線逾時");
+                selector.select(200);
+                selector.selectedKeys().clear();
+                SocketChannel socket;
+                while ((socket = server.accept()) != null) {
+                    ShardChannel channel = new ShardChannel(socket);
+                    int shardId = channel.receiveFrame(ShardChannel.HELLO).getInt();
+                    channels[shardId] = channel;
+                    connected++;
+                }
+            }
+        }
+    }
+
+    private void printReport(FleetMetrics total, FleetMetrics[] perShard, long wallNanos) {
+        double wallSec = wallNanos / 1e9;
+        System.out.println("\n--- [協調者] 車隊模擬結果 (" + shardCount + " 個分片) ---");
+        System.out.println("車輛數：" + total.vehicles + "，tick 數：" + ticks);
+        System.out.println("完成航程：" + total.tripsCompleted + "，墜毀：" + total.crashes);
+        System.out.println("降落排隊被拒：" + total.landingDenials + "，優先降落：" + total.priorityLandings);
+        System.out.println("空域格超載：" + total.airspaceConflicts + "，過期的降落回覆：" + total.staleLandingReplies);
+        System.out.println("訊息：本地 " + total.localMessages + "，跨分片 " + total.crossShardMessages);
+        System.out.println("耗電：" + String.format("%.1f", total.energyUsed) + "% SOC (每趟平均 "
+                + String.format("%.1f", total.energyUsed / Math.max(1, total.tripsCompleted)) + "%)，充電：" + String.format("%.1f", total.energyCharged) + "% SOC");
+        for (int s = 0; s < perShard.length; s++) {
+            System.out.println("   分片 " + s + "：" + perShard[s].vehicles + " 台，運算 " + String.format("%.1f", perShard[s].busyNanos / 1e6) + " ms");
+        }
+        System.out.println("協調者轉送：" + String.format("%.1f", relayNanos / 1e6) + " ms");
+        System.out.println("牆鐘時間：" + String.format("%.2f", wallSec) + " s，吞吐量："
+                + String.format("%.0f", total.vehicleSteps / wallSec) + " 車-步/秒，"
+                + String.format("%.1f", ticks / wallSec) + " ticks/秒");
+    }
+}
+
+
+// --- 行程基準測試 1：起訖點工作負載 (三種載具跑完全相同的行程) ---
+class TripWorkload {
+    static final double REGION_KM = 300.0;  // 起訖點分布於 300 x 300 km 區域
+    static final double MIN_TRIP_KM = 10.0;
+
+    private final long seed;
+    private final double[] distancesKm;
+
+    public TripWorkload(int trips, long seed) {
+        this.seed = seed;
+        this.distancesKm = new double[trips];
+        Random random = new Random(seed);
+        for (int i = 0; i < trips; i++) {
+            double dx = (random.nextDouble() - random.nextDouble()) * REGION_KM;
+            double dy = (random.nextDouble() - random.nextDouble()) * REGION_KM;
+            distancesKm[i] = Math.max(MIN_TRIP_KM, Math.hypot(dx, dy));
+        }
+    }
+
+    public int size() { return distancesKm.length; }
+    public long getSeed() { return seed; }
+    public double distanceAt(int i) { return distancesKm[i]; }
+}
+
+
+// --- 行程基準測試 2：單一載具類型的統計 ---
+class TripResult {
+    final String vehicleType;
+    long trips;
+    long completedTrips;
+    long failedTrips;
+    long chargeStops;
+    long takeoffs;
+    long landings;
+    double distanceKm;
+    double energyUsed;              // 單位 % SOC (含充電站補充的電量)
+    double travelSeconds;           // 依距離 / 當下速度換算的模擬行駛時間
+    double modeChangeSeconds;       // SOP 等程序的模擬耗時 (模式切換成本)
+    double takeoffLandingSeconds;   // 起飛爬升 / 進場降落的模擬耗時
+    double chargingSeconds;         // 途中及行程內充電的模擬耗時
+    long wallNanos;                 // 各分段牆鐘時間加總 (三種載具交錯執行，不能用整體起訖時間)
+    long cpuNanos;
+
+    TripResult(String vehicleType) { this.vehicleType = vehicleType; }
+
+    void merge(TripResult other) {
+        trips += other.trips;
+        completedTrips += other.completedTrips;
+        failedTrips += other.failedTrips;
+        chargeStops += other.chargeStops;
+        takeoffs += other.takeoffs;
+        landings += other.landings;
+        distanceKm += other.distanceKm;
+        energyUsed += other.energyUsed;
+        travelSeconds += other.travelSeconds;
+        modeChangeSeconds += other.modeChangeSeconds;
+        takeoffLandingSeconds += other.takeoffLandingSeconds;
+        chargingSeconds += other.chargingSeconds;
+        wallNanos += other.wallNanos;
+        cpuNanos += other.cpuNanos;
+    }
+
+    // 一行一筆 JSON，方便逐次比對回歸
+    String toJson(TripWorkload workload) {
+        double simulatedSeconds = travelSeconds + modeChangeSeconds + takeoffLandingSeconds + chargingSeconds;
+        long perTrip = Math.max(1, trips);
+        return String.format(Locale.ROOT,
+                "{\"benchmark\":\"trip-workload\",\"vehicleType\":\"%s\",\"trips\":%d,\"seed\":%d,\"stepKm\":%.1f,"
+                        + "\"completedTrips\":%d,\"failedTrips\":%d,\"distanceKm\":%.3f,"
+                        + "\"energyUsedSoc\":%.3f,\"energyPerTripSoc\":%.4f,\"energyPer100KmSoc\":%.4f,"
+                        + "\"chargeStops\":%d,\"takeoffs\":%d,\"landings\":%d,"
+                        + "\"simulatedTravelSeconds\":%.3f,\"simulatedModeChangeSeconds\":%.3f,"
+                        + "\"simulatedTakeoffLandingSeconds\":%.3f,\"simulatedChargingSeconds\":%.3f,"
+                        + "\"simulatedTripSeconds\":%.3f,\"meanTripSeconds\":%.4f,"
+                        + "\"chunkWallClockMs\":%.3f,\"cpuMs\":%.3f,\"cpuNanosPerTrip\":%d}",
+                vehicleType, trips, workload.getSeed(), TripBenchmark.STEP_KM,
+                completedTrips, failedTrips, distanceKm,
+                energyUsed, energyUsed / perTrip, distanceKm > 0 ? energyUsed / distanceKm * 100.0 : 0.0,
+                chargeStops, takeoffs, landings,
+                travelSeconds, modeChangeSeconds,
+                takeoffLandingSeconds, chargingSeconds,
+                simulatedSeconds, simulatedSeconds / perTrip,
+                wallNanos / 1e6, cpuNanos / 1e6, cpuNanos / perTrip);
+    }
+}
+
+
+// --- 行程基準測試 3：以相同工作負載平行驅動 FlyingCar / RegularCar / Airplane ---
+class TripBenchmark {
+    static final double STEP_KM = 25.0;         // 每次 drive() / fly() / requestFly() 代表的距離
+    static final double GROUND_ACCESS_KM = 5.0; // FlyingCar 出發點 → 起降場、起降場 → 目的地的地面距離
+    static final double TAKEOFF_SECONDS = 60.0;  // 每次起飛 (含爬升) 的模擬耗時
+    static final double LANDING_SECONDS = 60.0;  // 每次降落 (含進場) 的模擬耗時
+    static final double CHARGE_SECONDS_PER_SOC = 36.0; // 每充 1% 的模擬耗時 (充滿約 1 小時)
+    private static final int CHUNK_TRIPS = 1000;
+
+    private static final String[] VEHICLE_TYPES = { "FlyingCar", "RegularCar", "Airplane" };
+
+    private final TripWorkload workload;
+    private final int threads;
+
+    public TripBenchmark(TripWorkload workload, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("執行緒數必須 >= 1");
+        }
+        this.workload = workload;
+        this.threads = threads;
+    }
+
+    // 三種載具的分段交錯排入執行緒池同時推進；完成後依分段順序合併，確保輸出可重現
+    public List<TripResult> run() throws InterruptedException {
+        List<TripResult> results = new ArrayList<>();
+        for (String vehicleType : VEHICLE_TYPES) results.add(new TripResult(vehicleType));
+
+        List<Callable<TripResult>> tasks = new ArrayList<>();
+        for (int from = 0; from < workload.size(); from += CHUNK_TRIPS) {
+            int start = from;
+            int end = Math.min(workload.size(), from + CHUNK_TRIPS);
+            for (String vehicleType : VEHICLE_TYPES) {
+                tasks.add(() -> runChunk(vehicleType, start, end));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<TripResult>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.get(i % VEHICLE_TYPES.length).merge(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("行程模擬失敗", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private TripResult runChunk(String vehicleType, int from, int to) throws InterruptedException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        TripResult chunk = new TripResult(vehicleType);
+        long cpuStart = threadBean.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+        for (int i = from; i < to; i++) {
+            double distanceKm = workload.distanceAt(i);
+            switch (vehicleType) {
+                case "FlyingCar": runFlyingCarTrip(distanceKm, chunk); break;
+                case "RegularCar": runRegularCarTrip(distanceKm, chunk); break;
+                case "Airplane": runAirplaneTrip(distanceKm, chunk); break;
+            }
+            chunk.trips++;
+            chunk.distanceKm += distanceKm;
+        }
+        chunk.takeoffLandingSeconds = chunk.takeoffs * TAKEOFF_SECONDS + chunk.landings * LANDING_SECONDS;
+        chunk.wallNanos = System.nanoTime() - wallStart;
+        chunk.cpuNanos = threadBean.getCurrentThreadCpuTime() - cpuStart;
+        return chunk;
+    }
+
+    // 地面接駁 → 轉換飛行模式 → 起飛 → 巡航 (電量將低於降落備援前先降落充電) → 降落 → 恢復汽車模式 → 地面接駁
+    private void runFlyingCarTrip(double distanceKm, TripResult result) throws InterruptedException {
+        FlyingCar car = new FlyingCar("FlyingCar");
+        double charged = 0.0;
+        boolean completed = false;
+        car.powerOn();
+        car.drive();
+        result.travelSeconds += secondsFor(GROUND_ACCESS_KM, car.getCurrentSpeed());
+        car.stopDriving();
+        car.requestFlightMode();
+        if (car.getCurrentMode() == FlyingCar.OperatingMode.FLIGHT_READY) car.requestTakeOff();
+        // 每個指令都可能被檢查單拒絕：確認模式真的切換後才計入起降與充電，否則行程失敗
+        if (car.getCurrentMode() == FlyingCar.OperatingMode.AIRBORNE) {
+            result.takeoffs++;
+            double remainingKm = distanceKm;
+            while (remainingKm > 0 && car.getCurrentMode() == FlyingCar.OperatingMode.AIRBORNE) {
+                if (car.getBatteryCharge() - car.getEMS().getCruiseConsumption() < EnergyManagementSystem.LANDING_RESERVE_SOC) {
+                    car.requestLanding();
+                    if (car.getCurrentMode() != FlyingCar.OperatingMode.LANDED) break;
+                    result.landings++;
+                    charged += 100.0 - car.getBatteryCharge();
+                    car.charge();
+                    result.chargeStops++;
+                    car.requestTakeOff();
+                    if (car.getCurrentMode() != FlyingCar.OperatingMode.AIRBORNE) break;
+                    result.takeoffs++;
+                    continue;
+                }
+                car.requestFly();
+                double stepKm = Math.min(STEP_KM, remainingKm);
+                result.travelSeconds += secondsFor(stepKm, car.getCurrentSpeed());
+                remainingKm -= stepKm;
+            }
+            if (remainingKm <= 0 && car.getCurrentMode() == FlyingCar.OperatingMode.AIRBORNE) car.requestLanding();
+            if (car.getCurrentMode() == FlyingCar.OperatingMode.LANDED) { // 含巡航中 EMS 觸發的自動降落
+                result.landings++;
+                if (remainingKm <= 0) {
+                    car.requestGroundMode();
+                    if (car.getCurrentMode() == FlyingCar.OperatingMode.GROUND) {
+                        car.drive();
+                        result.travelSeconds += secondsFor(GROUND_ACCESS_KM, car.getCurrentSpeed());
+                        car.stopDriving();
+                        completed = true;
+                    }
+                }
+            }
+        }
+        finishTrip(car, charged, completed, result);
+    }
+
+    // 電力不足時 drive() 不會耗電：停車充電後重試
+    private void runRegularCarTrip(double distanceKm, TripResult result) {
+        RegularCar car = new RegularCar("RegularCar");
+        double charged = 0.0;
+        car.powerOn();
+        double remainingKm = distanceKm;
+        while (remainingKm > 0) {
+            double before = car.getBatteryCharge();
+            car.drive();
+            if (car.getBatteryCharge() == before) {
+                car.stopDriving();
+                charged += 100.0 - car.getBatteryCharge();
+                car.charge();
+                result.chargeStops++;
+                continue;
+            }
+            double stepKm = Math.min(STEP_KM, remainingKm);
+            result.travelSeconds += secondsFor(stepKm, car.getCurrentSpeed());
+            remainingKm -= stepKm;
+        }
+        car.stopDriving();
+        finishTrip(car, charged, true, result);
+    }
+
+    // 電力不足時 fly() 會自行迫降：充電後重新起飛；起飛被拒 (未升空) 則行程失敗
+    private void runAirplaneTrip(double distanceKm, TripResult result) {
+        Airplane plane = new Airplane("Airplane");
+        double charged = 0.0;
+        boolean completed = false;
+        plane.powerOn();
+        plane.takeOff();
+        if (plane.isFlying()) {
+            result.takeoffs++;
+            double remainingKm = distanceKm;
+            while (remainingKm > 0) {
+                plane.fly();
+                if (!plane.isFlying()) {
+                    result.landings++;
+                    charged += 100.0 - plane.getBatteryCharge();
+                    plane.charge();
+                    result.chargeStops++;
+                    plane.takeOff();
+                    if (!plane.isFlying()) break;
+                    result.takeoffs++;
+                    continue;
+                }
+                double stepKm = Math.min(STEP_KM, remainingKm);
+                result.travelSeconds += secondsFor(stepKm, plane.getCurrentSpeed());
+                remainingKm -= stepKm;
+            }
+            if (plane.isFlying()) {
+                plane.land();
+                result.landings++;
+                completed = true;
+            }
+        }
+        finishTrip(plane, charged, completed, result);
+    }
+
+    private static double secondsFor(double km, int speedKmh) {
+        return speedKmh > 0 ? km / speedKmh * 3600.0 : 0.0;
+    }
+
+    private static void finishTrip(Vehicle vehicle, double charged, boolean completed, TripResult result) {
+        result.energyUsed += charged + (100.0 - vehicle.getBatteryCharge());
+        result.modeChangeSeconds += vehicle.getSimulatedProcessMillis() / 1000.0;
+        result.chargingSeconds += charged * CHARGE_SECONDS_PER_SOC;
+        if (completed) result.completedTrips++;
+        else result.failedTrips++;
     }
 }
 
 
 // --- 主程式 (整合所有 5 個測試情境) ---
 public class Main {
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        // 分片車隊模擬：java Main fleet <分片數> <車輛數> <tick 數>
+        if (args.length > 0 && args[0].equals("fleet")) {
+            int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int vehicles = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+            int ticks = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+            new FleetCoordinator(shards, vehicles, ticks).run();
+            return;
+        }
+        // 狀態串流：java Main stream <車輛數>
+        if (args.length > 0 && args[0].equals("stream")) {
+            int vehicleCount = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+            boolean pacing = Vehicle.isRealTimePacing();
+            boolean logging = Vehicle.isConsoleLogging();
+            Vehicle.setRealTimePacing(false);
+            Vehicle.setConsoleLogging(false);
+            try {
+                runStateStreamDemo(vehicleCount);
+            } finally {
+                Vehicle.setRealTimePacing(pacing);
+                Vehicle.setConsoleLogging(logging);
+            }
+            return;
+        }
+        // 行程基準測試：java Main bench <行程數> <亂數種子> <執行緒數>，每種載具輸出一行 JSON
+        if (args.length > 0 && args[0].equals("bench")) {
+            int trips = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            boolean pacing = Vehicle.isRealTimePacing();
+            boolean logging = Vehicle.isConsoleLogging();
+            Vehicle.setRealTimePacing(false);
+            Vehicle.setConsoleLogging(false);
+            try {
+                TripWorkload workload = new TripWorkload(trips, seed);
+                for (TripResult result : new TripBenchmark(workload, threads).run()) {
+                    System.out.println(result.toJson(workload));
+                }
+            } finally {
+                Vehicle.setRealTimePacing(pacing);
+                Vehicle.setConsoleLogging(logging);
+            }
+            return;
+        }
+        // 由協調者啟動的分片子行程
+        if (args.length > 0 && args[0].equals("--fleet-shard")) {
+            FleetShard.runWorker(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
 
         System.out.println("--- 測試 1：對照組 (RegularCar) ---");
         RegularCar tesla = new RegularCar("Tesla Model S Plaid (基準)");
@@ -721,4 +2044,62 @@ public class Main {
         failCar.drive(); // 應無效
         failCar.powerOff(); // 應顯示已被 EPS 斷電
     }
+    // 一個刻意變慢的儀表板訂閱者跟隨整個車隊，最後核對收到的最新值與車輛實際狀態
+    private static void runStateStreamDemo(int vehicleCount) throws InterruptedException {
+        VehicleStatePublisher publisher = new VehicleStatePublisher(vehicleCount);
+        FlyingCar[] fleet = new FlyingCar[vehicleCount];
+        for (int i = 0; i < vehicleCount; i++) {
+            fleet[i] = new FlyingCar("FC-" + i);
+            fleet[i].attachStatePublisher(publisher);
+        }
+
+        int fieldCount = VehicleStateField.values().length;
+        double[] dashboard = new double[vehicleCount * fieldCount];
+        long[] received = new long[2]; // [批次數, 變更筆數]
+        CountDownLatch completed = new CountDownLatch(1);
+        publisher.subscribe(new Flow.Subscriber<VehicleStateBatch>() {
+            private Flow.Subscription subscription;
+            @Override public void onSubscribe(Flow.Subscription s) { this.subscription = s; s.request(1); }
+            @Override public void onNext(VehicleStateBatch batch) {
+                for (int i = 0; i < batch.size(); i++) {
+                    dashboard[batch.vehicleSlotAt(i) * fieldCount + batch.fieldAt(i).ordinal()] = batch.valueAt(i);
+                }
+                received[0]++;
+                received[1] += batch.size();
+                try { Thread.sleep(2); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                subscription.request(1);
+            }
+            @Override public void onError(Throwable t) { t.printStackTrace(); completed.countDown(); }
+            @Override public void onComplete() { completed.countDown(); }
+        });
+
+        long start = System.nanoTime();
+        for (FlyingCar car : fleet) {
+            car.powerOn();
+            car.requestFlightMode();
+            car.requestTakeOff();
+            car.requestFly();
+            car.requestFly();
+            car.requestLanding();
+        }
+        long simulated = System.nanoTime() - start;
+        publisher.close();
+        completed.await();
+        long total = System.nanoTime() - start;
+
+        int mismatches = 0;
+        for (FlyingCar car : fleet) {
+            int base = car.getStateSlot() * fieldCount;
+            if (dashboard[base + VehicleStateField.SOC.ordinal()] != car.getBatteryCharge()
+                    || dashboard[base + VehicleStateField.MODE.ordinal()] != car.getCurrentMode().ordinal()
+                    || dashboard[base + VehicleStateField.ALTITUDE.ordinal()] != car.getCurrentAltitude()
+                    || dashboard[base + VehicleStateField.SPEED.ordinal()] != car.getCurrentSpeed()) {
+                mismatches++;
+            }
+        }
+        System.out.println("--- 狀態串流：" + vehicleCount + " 台 FlyingCar，1 個慢速訂閱者 ---");
+        System.out.println("模擬耗時：" + String.format("%.1f", simulated / 1e6) + " ms，全部送達：" + String.format("%.1f", total / 1e6) + " ms");
+        System.out.println("收到批次：" + received[0] + "，變更筆數：" + received[1]);
+        System.out.println("儀表板與車輛狀態不一致：" + mismatches + " 台");
+    }
 }